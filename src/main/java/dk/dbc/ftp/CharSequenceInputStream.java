@@ -0,0 +1,85 @@
+package dk.dbc.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * InputStream encoding a CharSequence in fixed-size chunks, so that
+ * the encoded content never has to be held in memory as a whole.
+ * Malformed and unmappable characters are replaced, matching the
+ * behaviour of {@link String#getBytes(Charset)}.
+ */
+class CharSequenceInputStream extends InputStream {
+    private final CharBuffer chars;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes;
+    private boolean endOfInput = false;
+    private boolean flushed = false;
+
+    CharSequenceInputStream(CharSequence content, Charset charset, int bufferSize) {
+        chars = CharBuffer.wrap(content);
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocate(bufferSize);
+        bytes.flip();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return bytes.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, bytes.remaining());
+        bytes.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return bytes.remaining();
+    }
+
+    private boolean fill() throws IOException {
+        while (!bytes.hasRemaining()) {
+            if (flushed) {
+                return false;
+            }
+            bytes.clear();
+            final CoderResult result;
+            if (!endOfInput) {
+                result = encoder.encode(chars, bytes, true);
+                if (result.isUnderflow()) {
+                    endOfInput = true;
+                }
+            } else {
+                result = encoder.flush(bytes);
+                if (result.isUnderflow()) {
+                    flushed = true;
+                }
+            }
+            if (result.isError()) {
+                result.throwException();
+            }
+            bytes.flip();
+        }
+        return true;
+    }
+}
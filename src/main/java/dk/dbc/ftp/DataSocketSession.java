@@ -0,0 +1,41 @@
+package dk.dbc.ftp;
+
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPReply;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * FTP session giving access to raw data connections, eg. for reading
+ * listings without the parsing done by commons-net
+ */
+interface DataSocketSession {
+    /**
+     * Opens a data connection for the given command, see
+     * {@link org.apache.commons.net.ftp.FTPClient#completePendingCommand()}
+     * @param command command to send
+     * @param arg argument of command, may be null
+     * @return data connection socket, or null if refused by the server
+     * @throws IOException on error
+     */
+    Socket openDataSocket(FTPCmd command, String arg) throws IOException;
+
+    /**
+     * Sets the listener notified when a data connection cannot be opened
+     * in the data connection mode of the session
+     * @param listener listener, or null for none
+     */
+    void setDataConnectionFailureListener(Runnable listener);
+
+    /**
+     * @param replyCode reply code of a refused data connection
+     * @return true if the data connection itself was refused, as opposed
+     * to the command sent over it, eg. a missing file
+     */
+    static boolean isDataConnectionRefused(int replyCode) {
+        return replyCode == FTPReply.CANNOT_OPEN_DATA_CONNECTION
+                || replyCode == FTPReply.UNRECOGNIZED_COMMAND
+                || replyCode == FTPReply.COMMAND_NOT_IMPLEMENTED;
+    }
+}
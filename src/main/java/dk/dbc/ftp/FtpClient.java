@@ -2,33 +2,105 @@ package dk.dbc.ftp;
 
 import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPCmd;
 import org.apache.commons.net.ftp.FTPFile;
 import org.apache.commons.net.ftp.FTPFileFilter;
 import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.ftp.FTPSClient;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.Proxy;
+import java.net.Socket;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 
 /**
  * This utility class provides convenience methods for executing FTP commands.
  * This class is NOT thread-safe.
  */
 public class FtpClient {
+    /* size of the chunks in which character content is encoded
+       onto the data connection */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /* data connection modes probed on servers
+       in order of preference on equal timing */
+    private static final DataConnectionMode[] PROBED_DATA_CONNECTION_MODES = {
+            DataConnectionMode.EXTENDED_PASSIVE,
+            DataConnectionMode.PASSIVE,
+            DataConnectionMode.ACTIVE
+    };
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(5);
+
+    /* data connection modes chosen for each server, keyed by host:port */
+    private static final ConcurrentMap<String, DataConnectionMode> SERVER_DATA_CONNECTION_MODES =
+            new ConcurrentHashMap<>();
+
+    /* runs pre-connects and idle checks, daemon threads so that
+       clients left unclosed do not keep the JVM alive */
+    private static final Executor BACKGROUND_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "ftp-client-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /* features announced by each server, keyed by host:port */
+    private static final ConcurrentMap<String, Set<String>> SERVER_FEATURES =
+            new ConcurrentHashMap<>();
+
     private String host;
     private Integer port;
     private String username;
     private String password;
     private FTPClient session;
     private Proxy proxy = Proxy.NO_PROXY;
+    private TlsMode tlsMode = TlsMode.NONE;
+    private SSLContext sslContext;
+    private String[] tlsProtocols;
+    private String[] tlsCipherSuites;
+    private boolean tlsSessionReuse = false;
+    private HostnameVerifier hostnameVerifier;
+    private FtpGovernor governor;
+    private ListingParser listingParser;
+    private DataConnectionMode dataConnectionMode = DataConnectionMode.PASSIVE;
+    private int activeMinPort = 0;
+    private int activeMaxPort = 0;
+    private String sessionPermitHost;
+    private Duration idleCheck;
+    private CompletableFuture<Void> pendingConnect;
+    private IdleChecks idleChecks;
+    /* working directory set through cd, restored when a session is reopened,
+       relative to the login directory unless absolute */
+    private String workingDirectory;
 
     public enum FileType {
         ASCII(FTP.ASCII_FILE_TYPE),
@@ -40,6 +112,36 @@ public class FtpClient {
         }
     }
 
+    public enum TlsMode {
+        /** plain FTP */
+        NONE,
+        /** FTPS negotiated through AUTH TLS on the control connection, RFC 4217 */
+        EXPLICIT,
+        /** FTPS with TLS from connect, by default on port 990 */
+        IMPLICIT
+    }
+
+    public enum DataConnectionMode {
+        /** client connects to address announced by server through PASV */
+        PASSIVE,
+        /** client connects to port announced by server through EPSV,
+         * falling back to PASV if refused, RFC 2428 */
+        EXTENDED_PASSIVE,
+        /** server connects to client through PORT or EPRT */
+        ACTIVE,
+        /** the fastest working mode, probed once per server */
+        AUTO
+    }
+
+    /**
+     * Callback writing content directly onto the data connection
+     * of a {@link #put(String, ContentWriter)} transfer
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(Writer writer) throws IOException;
+    }
+
     public FtpClient withHost(String host) {
         this.host = host;
         return this;
@@ -68,51 +170,276 @@ public class FtpClient {
         return this;
     }
 
+    /**
+     * Secures control and data connections using TLS. Data connections
+     * are protected through PBSZ 0 and PROT P after login.
+     * @param tlsMode TLS mode, {@link TlsMode#NONE} for plain FTP
+     * @return this client
+     */
+    public FtpClient withTlsMode(TlsMode tlsMode) {
+        close();
+        this.tlsMode = tlsMode;
+        return this;
+    }
+
+    /**
+     * Sets the SSL context used for TLS connections. If not set, the
+     * JVM default context is used, whose session cache is shared by
+     * all clients, so that repeated connections to a server can resume
+     * earlier TLS sessions.
+     * @param sslContext SSL context
+     * @return this client
+     */
+    public FtpClient withSslContext(SSLContext sslContext) {
+        close();
+        this.sslContext = sslContext;
+        return this;
+    }
+
+    /**
+     * @param tlsProtocols TLS protocols enabled on control and data
+     *                     connections, eg. "TLSv1.3"
+     * @return this client
+     */
+    public FtpClient withTlsProtocols(String... tlsProtocols) {
+        close();
+        this.tlsProtocols = tlsProtocols;
+        return this;
+    }
+
+    /**
+     * @param tlsCipherSuites cipher suites enabled on control and data
+     *                        connections
+     * @return this client
+     */
+    public FtpClient withTlsCipherSuites(String... tlsCipherSuites) {
+        close();
+        this.tlsCipherSuites = tlsCipherSuites;
+        return this;
+    }
+
+    /**
+     * Replaces the default check of the server host name against its
+     * certificate, done through endpoint identification, by the given
+     * {@code hostnameVerifier}, eg. for servers whose certificates do not
+     * match the host name used to connect to them
+     * @param hostnameVerifier host name verifier, or null for the default check
+     * @return this client
+     */
+    public FtpClient withHostnameVerifier(HostnameVerifier hostnameVerifier) {
+        close();
+        this.hostnameVerifier = hostnameVerifier;
+        return this;
+    }
+
+    /**
+     * Determines whether data connections resume the TLS session of the
+     * control connection instead of doing a full handshake per transfer.
+     * Disabled by default. Resumption relies on JDK internals, accessed
+     * with an illegal reflective access warning on Java 9 to 15. Connecting
+     * fails with {@link FtpClientException} if enabled while
+     * {@link #isTlsSessionReuseSupported()} is false.
+     * @param tlsSessionReuse true to resume TLS sessions on data connections
+     * @return this client
+     */
+    public FtpClient withTlsSessionReuse(boolean tlsSessionReuse) {
+        close();
+        this.tlsSessionReuse = tlsSessionReuse;
+        return this;
+    }
+
+    /**
+     * Determines whether TLS sessions can be resumed on data connections in
+     * this JVM, which on Java 16 and later requires the JVM options
+     * {@code --add-opens java.base/sun.security.ssl=ALL-UNNAMED} and
+     * {@code --add-opens java.base/sun.security.util=ALL-UNNAMED}
+     * @return true if {@link #withTlsSessionReuse(boolean)} is supported
+     */
+    public static boolean isTlsSessionReuseSupported() {
+        return FtpsSession.isSessionReuseSupported();
+    }
+
+    /**
+     * Sets how data connections are established. Defaults to
+     * {@link DataConnectionMode#PASSIVE}.
+     * <p>
+     * In {@link DataConnectionMode#AUTO} mode the first client connecting
+     * to a server times the setup of a data connection in each of the
+     * other modes, by requesting and abandoning a listing of the login
+     * directory, and all clients in this JVM subsequently use the fastest
+     * working mode for the server.
+     * </p>
+     * @param dataConnectionMode data connection mode
+     * @return this client
+     */
+    public FtpClient withDataConnectionMode(DataConnectionMode dataConnectionMode) {
+        close();
+        this.dataConnectionMode = dataConnectionMode;
+        return this;
+    }
+
+    /**
+     * Restricts the local ports used for data connections in
+     * {@link DataConnectionMode#ACTIVE} mode, eg. to ports opened in a
+     * firewall. By default any free port is used.
+     * @param minPort lowest port in range
+     * @param maxPort highest port in range
+     * @return this client
+     */
+    public FtpClient withActivePortRange(int minPort, int maxPort) {
+        close();
+        this.activeMinPort = minPort;
+        this.activeMaxPort = maxPort;
+        return this;
+    }
+
+    /**
+     * Shares the limits of {@code governor} on concurrent sessions and
+     * bandwidth per host with all other clients using it. Sessions are
+     * held from connect until close, put and get transfers are throttled.
+     * @param governor governor, or null for no limits
+     * @return this client
+     */
+    public FtpClient withGovernor(FtpGovernor governor) {
+        close();
+        this.governor = governor;
+        return this;
+    }
+
+    /**
+     * Registers a parser for the known listing format of the server,
+     * eg. {@link UnixListingParser}. Unfiltered {@link #list(String)}
+     * and {@link #listEntries(String, Predicate)} then parse listings
+     * directly from the received bytes, skipping the format detection
+     * and full parsing into {@link FTPFile} done by commons-net.
+     * @param listingParser listing parser, or null to use commons-net
+     * @return this client
+     */
+    public FtpClient withListingParser(ListingParser listingParser) {
+        this.listingParser = listingParser;
+        return this;
+    }
+
+    /**
+     * Sessions left idle are probed with a NOOP command in the background
+     * every {@code idleCheck} until the next request or {@link #close()},
+     * and reconnected, in the working directory set through
+     * {@link #cd(String)}, if found dead. A session dropped by the server
+     * while idle is thus replaced before the next request, which only
+     * waits if it arrives while a probe or reconnect is running.
+     * @param idleCheck interval between probes of an idle session,
+     *                  or null to never probe
+     * @return this client
+     * @throws IllegalArgumentException if idleCheck is zero or negative
+     */
+    public FtpClient withIdleCheck(Duration idleCheck) {
+        if (idleCheck != null && (idleCheck.isZero() || idleCheck.isNegative())) {
+            throw new IllegalArgumentException("idleCheck must be positive, was " + idleCheck);
+        }
+        stopIdleChecks();
+        this.idleCheck = idleCheck;
+        return this;
+    }
+
     /**
      * Opens connection to ftp server specified through withHost method
      * @return this client
      */
     public FtpClient connect() {
-        if (isConnected()) {
-            close();
-        }
-        session = new FTPClient();
-        session.setProxy(proxy);
-        try {
-            if (port != null) {
-                session.connect(host, port);
-            } else {
-                session.connect(host);
-            }
-            checkReplyCode();
-            session.enterLocalPassiveMode();
-            session.setFileType(FTP.BINARY_FILE_TYPE);
-        } catch (IOException e) {
-            throw new FtpClientException(e);
-        }
+        awaitPendingConnect();
+        workingDirectory = null;
+        openSession();
+        startIdleChecks();
+        return this;
+    }
+
+    /**
+     * Opens connection to ftp server specified through withHost method,
+     * unless already connected, and fetches the features supported by
+     * the server, so that the first request does not pay for it
+     * @return this client
+     */
+    public FtpClient warmUp() {
+        awaitPendingConnect();
         try {
-            session.login(username, password);
-            checkReplyCode();
-        } catch (IOException e) {
-            throw new FtpClientException(e);
+            warmUpSession();
+        } finally {
+            startIdleChecks();
         }
         return this;
     }
 
+    /**
+     * Starts {@link #warmUp()} in the background on a daemon thread
+     * dedicated to FTP clients
+     * @return this client
+     * @see #preConnect(Executor)
+     */
+    public FtpClient preConnect() {
+        return preConnect(BACKGROUND_EXECUTOR);
+    }
+
+    /**
+     * Starts {@link #warmUp()} in the background using the given
+     * {@code executor}. The next method called on this client waits for
+     * the warm-up to finish. If the warm-up fails, the connection is
+     * instead opened on demand by the next request.
+     * @param executor executor running the warm-up
+     * @return this client
+     */
+    public FtpClient preConnect(Executor executor) {
+        awaitPendingConnect();
+        // created here, started by the warm-up once the session is open
+        final IdleChecks checks = idleCheck != null ? new IdleChecks(idleCheck) : null;
+        idleChecks = checks;
+        pendingConnect = CompletableFuture.runAsync(() -> {
+            warmUpSession();
+            if (checks != null) {
+                checks.start();
+            }
+        }, executor);
+        return this;
+    }
+
     /**
      * Closes the connection to the FTP server
      * @return this client
      */
     public FtpClient close() {
-        if (isConnected()) {
-            try {
-                session.disconnect();
-                session = null;
-            } catch (IOException e) {
-                throw new FtpClientException(e);
+        awaitPendingConnect();
+        workingDirectory = null;
+        disconnect();
+        return this;
+    }
+
+    /**
+     * Returns the features announced by the server through the FEAT
+     * command. Features are fetched once per server and shared by all
+     * clients in this JVM.
+     * @return set of features, empty if FEAT is not supported by the server
+     */
+    public Set<String> features() {
+        ensureConnected();
+        try {
+            return serverFeatures();
+        } finally {
+            startIdleChecks();
+        }
+    }
+
+    /**
+     * Determines whether the server announces the given feature
+     * @param feature name of feature, eg. "MDTM"
+     * @return true if feature is supported by the server, otherwise false
+     */
+    public boolean hasFeature(String feature) {
+        for (String announced : features()) {
+            if (announced.equalsIgnoreCase(feature)
+                    || announced.regionMatches(true, 0, feature + " ", 0, feature.length() + 1)) {
+                return true;
             }
         }
-        return this;
+        return false;
     }
 
     /**
@@ -121,14 +448,13 @@ public class FtpClient {
      * @return this client
      */
     public FtpClient cd(String remotePath) {
-        if (!isConnected()) {
-            connect();
-        }
+        ensureConnected();
         try {
-            session.changeWorkingDirectory(remotePath);
-            checkReplyCode();
-        } catch (IOException e) {
-            throw new FtpClientException(e);
+            changeWorkingDirectory(remotePath);
+            // resolved without asking the server, so cd costs a single round trip
+            workingDirectory = resolvePath(workingDirectory, remotePath);
+        } finally {
+            startIdleChecks();
         }
         return this;
     }
@@ -137,12 +463,15 @@ public class FtpClient {
      * Returns the working directory. If directories are not supported an empty string is returned
      */
     public String pwd() {
+        ensureConnected();
         try {
             String workingDirectory = session.printWorkingDirectory();
             checkReplyCode();
             return workingDirectory;
         } catch (Exception e) {
             return "";
+        } finally {
+            startIdleChecks();
         }
     }
 
@@ -154,8 +483,91 @@ public class FtpClient {
      * @return this client
      */
     public FtpClient put(String remote, String content) {
-        put(remote, new ByteArrayInputStream(
-                content.getBytes(StandardCharsets.UTF_8)));
+        return put(remote, (CharSequence) content);
+    }
+
+    /**
+     * Stores content of {@code content} UTF-8 encoded as file on the
+     * server using name {@code remote}. The content is encoded in
+     * fixed-size chunks while being sent, so no encoded copy of the
+     * full content is held in memory.
+     * @param remote name of remote file
+     * @param content content of remote file
+     * @return this client
+     */
+    public FtpClient put(String remote, CharSequence content) {
+        return put(remote, content, FileType.ASCII);
+    }
+
+    /**
+     * Stores content of {@code content} UTF-8 encoded as file on the
+     * server using name {@code remote}, encoding the content in
+     * fixed-size chunks while being sent
+     * @param remote name of remote file
+     * @param content content of remote file
+     * @param fileType type of file to be sent
+     * @return this client
+     */
+    public FtpClient put(String remote, CharSequence content, FileType fileType) {
+        return put(remote, new CharSequenceInputStream(
+                content, StandardCharsets.UTF_8, CHUNK_SIZE), fileType);
+    }
+
+    /**
+     * Stores content written by {@code contentWriter} UTF-8 encoded
+     * as file on the server using name {@code remote}
+     * @param remote name of remote file
+     * @param contentWriter callback writing the content of remote file
+     * @return this client
+     * @see #put(String, ContentWriter, FileType)
+     */
+    public FtpClient put(String remote, ContentWriter contentWriter) {
+        return put(remote, contentWriter, FileType.ASCII);
+    }
+
+    /**
+     * Stores content written by {@code contentWriter} UTF-8 encoded
+     * as file on the server using name {@code remote}. The writer
+     * handed to the callback is buffered in fixed-size chunks and
+     * writes straight onto the data connection, so memory use does
+     * not depend on the size of the content. The writer is closed
+     * when the callback returns. If the callback fails, the transfer is
+     * aborted by dropping the session, which is reopened on the next
+     * request, and the failure is rethrown.
+     * @param remote name of remote file
+     * @param contentWriter callback writing the content of remote file
+     * @param fileType type of file to be sent
+     * @return this client
+     */
+    public FtpClient put(String remote, ContentWriter contentWriter, FileType fileType) {
+        verifyRemote(remote);
+        ensureConnected();
+        try {
+            if (!session.setFileType(fileType.value)) {
+                throw new FtpClientException(String.format(
+                        "error setting file type to %s", fileType));
+            }
+            final OutputStream outputStream = session.storeFileStream(remote);
+            if (outputStream == null) {
+                throw new FtpClientException(session.getReplyString());
+            }
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    throttle(outputStream), StandardCharsets.UTF_8), CHUNK_SIZE);
+            try {
+                contentWriter.writeTo(writer);
+                writer.close();
+            } catch (IOException | RuntimeException e) {
+                abortTransfer(outputStream);
+                throw e;
+            }
+            if (!session.completePendingCommand()) {
+                throw new FtpClientException(session.getReplyString());
+            }
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        } finally {
+            startIdleChecks();
+        }
         return this;
     }
 
@@ -207,25 +619,19 @@ public class FtpClient {
      * @return this client
      */
     public FtpClient put(String remote, InputStream inputStream, FileType fileType) {
-        if (remote == null) {
-            throw new NullPointerException("Parameter 'remote' in FtpClient(...) must not be null or empty");
-        }
-        if (remote.isEmpty()) {
-            throw new IllegalArgumentException("Parameter 'remote' in FtpClient(...) must not be null or empty");
-        }
-        if (!isConnected()) {
-            connect();
-        }
+        verifyRemote(remote);
+        ensureConnected();
         try {
             if(!session.setFileType(fileType.value)) {
                 throw new FtpClientException(String.format(
                     "error setting file type to %s", fileType));
             }
-            session.storeFile(remote, inputStream);
+            session.storeFile(remote, throttle(inputStream));
             checkReplyCode();
         } catch (IOException e) {
             throw new FtpClientException(e);
         } finally {
+            startIdleChecks();
             try {
                 inputStream.close();
             } catch (IOException e) {
@@ -245,25 +651,19 @@ public class FtpClient {
      * @return this client
      */
     public FtpClient append(String remote, InputStream inputStream, FileType fileType) {
-        if (remote == null) {
-            throw new NullPointerException("Parameter 'remote' in FtpClient(...) must not be null or empty");
-        }
-        if (remote.isEmpty()) {
-            throw new IllegalArgumentException("Parameter 'remote' in FtpClient(...) must not be null or empty");
-        }
-        if (!isConnected()) {
-            connect();
-        }
+        verifyRemote(remote);
+        ensureConnected();
         try {
             if (!session.setFileType(fileType.value)) {
                 throw new FtpClientException(String.format(
                         "error setting file type to %s", fileType));
             }
-            session.appendFile(remote, inputStream);
+            session.appendFile(remote, throttle(inputStream));
             checkReplyCode();
         } catch (IOException e) {
             throw new FtpClientException(e);
         } finally {
+            startIdleChecks();
             try {
                 inputStream.close();
             } catch (IOException e) {
@@ -289,22 +689,27 @@ public class FtpClient {
      * @return inputstream
      */
     public InputStream get(String remote, FileType fileType) {
-        if(!isConnected()) {
-            connect();
-        }
+        ensureConnected();
         try {
             if(!session.setFileType(fileType.value)) {
                 throw new FtpClientException(String.format("error setting file type to %s", fileType));
             }
             InputStream inputStream = session.retrieveFileStream(remote);
             if(inputStream == null) throw new FtpClientException(session.getReplyString());
-            return new BufferedInputStream(inputStream) {
+            return new BufferedInputStream(throttle(inputStream)) {
                 private final AtomicBoolean isOpen = new AtomicBoolean(true);
 
                 @Override
                 public void close() throws IOException {
-                    if(isOpen.getAndSet(false) && !session.completePendingCommand()) {
-                        throw new FtpClientException(session.getReplyString());
+                    if(isOpen.getAndSet(false)) {
+                        try {
+                            if (!session.completePendingCommand()) {
+                                throw new FtpClientException(session.getReplyString());
+                            }
+                        } finally {
+                            // the session is idle only once the transfer is complete
+                            startIdleChecks();
+                        }
                     }
                     super.close();
                 }
@@ -321,9 +726,7 @@ public class FtpClient {
      * @return list of filenames
      */
     public List<String> list(String directory, FTPFileFilter fileFilter) {
-        if(!isConnected()) {
-            connect();
-        }
+        ensureConnected();
         try {
             List<String> filenames = new ArrayList<>();
             // use listFiles instead of listNames to get filtering in the client
@@ -335,6 +738,8 @@ public class FtpClient {
             return filenames;
         } catch(IOException e) {
             throw new FtpClientException(e);
+        } finally {
+            startIdleChecks();
         }
     }
 
@@ -344,9 +749,51 @@ public class FtpClient {
      * @return list of filenames
      */
     public List<String> list(String directory) {
+        if (listingParser != null) {
+            final List<String> filenames = new ArrayList<>();
+            // only the names are needed, so no entries are created
+            readListing(directory, (line, offset, length, charset) -> {
+                final String name = listingParser.parseName(line, offset, length, charset);
+                if (name != null) {
+                    filenames.add(name);
+                }
+            });
+            return filenames;
+        }
         return list(directory, file -> true);
     }
 
+    /**
+     * list entries in a directory using the parser registered
+     * through {@link #withListingParser(ListingParser)}
+     * @param directory directory to list entries in
+     * @param entryFilter filter on entries
+     * @return list of entries
+     */
+    public List<ListingEntry> listEntries(String directory, Predicate<ListingEntry> entryFilter) {
+        if (listingParser == null) {
+            throw new IllegalStateException("No listing parser registered in FtpClient");
+        }
+        final List<ListingEntry> entries = new ArrayList<>();
+        readListing(directory, (line, offset, length, charset) -> {
+            final ListingEntry entry = listingParser.parse(line, offset, length, charset);
+            if (entry != null && entryFilter.test(entry)) {
+                entries.add(entry);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * list entries in a directory using the parser registered
+     * through {@link #withListingParser(ListingParser)}
+     * @param directory directory to list entries in
+     * @return list of entries
+     */
+    public List<ListingEntry> listEntries(String directory) {
+        return listEntries(directory, entry -> true);
+    }
+
     /**
      * list files in the current directory
      * @param fileFilter filter on filenames
@@ -361,13 +808,11 @@ public class FtpClient {
      * @return list of filenames
      */
     public List<String> list() {
-        return list(null, file -> true);
+        return list((String) null);
     }
 
     public List<FTPFile> ls() {
-        if (!isConnected()) {
-            connect();
-        }
+        ensureConnected();
         try {
             List<FTPFile> files = new ArrayList<>();
             // use listFiles instead of listNames to get filtering in the client
@@ -379,6 +824,73 @@ public class FtpClient {
             return files;
         } catch (IOException e) {
             throw new FtpClientException(e);
+        } finally {
+            startIdleChecks();
+        }
+    }
+
+    private void readListing(String directory, ListingReader.LineHandler lineHandler) {
+        ensureConnected();
+        final Socket socket;
+        try {
+            socket = ((DataSocketSession) session).openDataSocket(FTPCmd.LIST, directory);
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        }
+        if (socket == null) {
+            throw new FtpClientException(session.getReplyString());
+        }
+        boolean completed = false;
+        try {
+            try (InputStream inputStream = socket.getInputStream()) {
+                ListingReader.read(inputStream,
+                        Charset.forName(session.getControlEncoding()), lineHandler);
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        } finally {
+            // the reply to LIST must be read even when reading or parsing
+            // failed, otherwise it is taken as the reply to the next command
+            completed = completePendingCommand();
+            startIdleChecks();
+        }
+        if (!completed) {
+            throw new FtpClientException(session != null
+                    ? session.getReplyString() : "unable to complete listing");
+        }
+    }
+
+    /* Reads the reply of a transfer, discarding the session if the
+       reply cannot be read, as the control connection is then out of sync */
+    private boolean completePendingCommand() {
+        try {
+            return session.completePendingCommand();
+        } catch (IOException e) {
+            discardSession();
+            return false;
+        }
+    }
+
+    /* Drops the session before closing the data connection, so that
+       the server does not see a normally ended transfer, and the control
+       connection is not left waiting for the reply of the transfer. */
+    private void abortTransfer(OutputStream dataStream) {
+        discardSession();
+        try {
+            dataStream.close();
+        } catch (IOException e) {
+            // data connection already broken
+        }
+    }
+
+    private static void verifyRemote(String remote) {
+        if (remote == null) {
+            throw new NullPointerException("Parameter 'remote' in FtpClient(...) must not be null or empty");
+        }
+        if (remote.isEmpty()) {
+            throw new IllegalArgumentException("Parameter 'remote' in FtpClient(...) must not be null or empty");
         }
     }
 
@@ -386,10 +898,426 @@ public class FtpClient {
         return session != null && session.isConnected();
     }
 
+    private void ensureConnected() {
+        awaitPendingConnect();
+        if (!isConnected()) {
+            openSession();
+        }
+    }
+
+    /* Takes the session back from any background work, a pre-connect
+       or idle checks, waiting for work already running */
+    private void awaitPendingConnect() {
+        if (pendingConnect != null) {
+            final CompletableFuture<Void> future = pendingConnect;
+            pendingConnect = null;
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                // the session may have been left half-open,
+                // the next request reconnects on demand
+                discardSession();
+            }
+        }
+        stopIdleChecks();
+    }
+
+    private void startIdleChecks() {
+        if (idleCheck != null && idleChecks == null && isConnected()) {
+            idleChecks = new IdleChecks(idleCheck);
+            idleChecks.start();
+        }
+    }
+
+    private void stopIdleChecks() {
+        if (idleChecks != null) {
+            idleChecks.stop();
+            idleChecks = null;
+        }
+    }
+
+    /* Probes the idle session, reconnecting if found dead.
+       Returns false if no session could be opened. */
+    private boolean checkIdleSession() {
+        boolean alive;
+        try {
+            alive = session.sendNoOp();
+        } catch (IOException e) {
+            alive = false;
+        }
+        if (!alive) {
+            discardSession();
+            try {
+                openSession();
+            } catch (RuntimeException e) {
+                // the next request reconnects on demand and reports the failure
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void openSession() {
+        if (isConnected()) {
+            disconnect();
+        }
+        acquireSessionPermit();
+        try {
+            connectAndLogin();
+            if (workingDirectory != null) {
+                // reopening a dropped session
+                changeWorkingDirectory(workingDirectory);
+            }
+        } catch (RuntimeException e) {
+            // do not leave a half-open session holding a session permit
+            discardSession();
+            throw e;
+        }
+    }
+
+    private void connectAndLogin() {
+        openControlConnection();
+        if (dataConnectionMode != DataConnectionMode.AUTO) {
+            applyDataConnectionMode(dataConnectionMode);
+            return;
+        }
+        final String key = serverKey();
+        if (!SERVER_DATA_CONNECTION_MODES.containsKey(key)) {
+            probeDataConnectionModes();
+        }
+        final DataConnectionMode mode = SERVER_DATA_CONNECTION_MODES.get(key);
+        if (mode == null) {
+            // no mode worked when probed, the next session probes again
+            applyDataConnectionMode(DataConnectionMode.PASSIVE);
+            return;
+        }
+        applyDataConnectionMode(mode);
+        // a remembered mode may stop working, eg. after a firewall change,
+        // sessions opened after it failed probe again
+        ((DataSocketSession) session).setDataConnectionFailureListener(
+                () -> SERVER_DATA_CONNECTION_MODES.remove(key, mode));
+    }
+
+    private void openControlConnection() {
+        session = newSession();
+        session.setProxy(proxy);
+        try {
+            if (port != null) {
+                session.connect(host, port);
+            } else {
+                session.connect(host);
+            }
+            checkReplyCode();
+            session.setFileType(FTP.BINARY_FILE_TYPE);
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        }
+        try {
+            session.login(username, password);
+            checkReplyCode();
+            if (session instanceof FTPSClient) {
+                ((FTPSClient) session).execPBSZ(0);
+                ((FTPSClient) session).execPROT("P");
+            }
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        }
+    }
+
+    /* Times the setup of a data connection in each mode and remembers
+       the fastest mode that worked for the server. A probe failing with
+       an exception may leave the control connection out of sync, so it
+       is replaced before probing the remaining modes. Nothing is
+       remembered if no mode worked. */
+    private void probeDataConnectionModes() {
+        DataConnectionMode fastestMode = null;
+        long fastestNanos = Long.MAX_VALUE;
+        for (DataConnectionMode mode : PROBED_DATA_CONNECTION_MODES) {
+            final long elapsedNanos;
+            try {
+                elapsedNanos = timeDataConnectionSetup(mode);
+            } catch (IOException e) {
+                try {
+                    session.disconnect();
+                } catch (IOException disconnectException) {
+                    // control connection already broken
+                }
+                openControlConnection();
+                continue;
+            }
+            if (elapsedNanos >= 0 && elapsedNanos < fastestNanos) {
+                fastestMode = mode;
+                fastestNanos = elapsedNanos;
+            }
+        }
+        if (fastestMode != null) {
+            SERVER_DATA_CONNECTION_MODES.putIfAbsent(serverKey(), fastestMode);
+        }
+    }
+
+    /* Returns the time taken to open a data connection in the given mode,
+       or -1 if refused by the server. Only the setup is timed, the listing
+       requested over the data connection is abandoned right away. */
+    private long timeDataConnectionSetup(DataConnectionMode mode) throws IOException {
+        final Duration dataTimeout = session.getDataTimeout();
+        final int connectTimeout = session.getConnectTimeout();
+        final int soTimeout = session.getSoTimeout();
+        session.setDataTimeout(PROBE_TIMEOUT);
+        session.setConnectTimeout((int) PROBE_TIMEOUT.toMillis());
+        session.setSoTimeout((int) PROBE_TIMEOUT.toMillis());
+        try {
+            applyDataConnectionMode(mode);
+            final long start = System.nanoTime();
+            final Socket socket = ((DataSocketSession) session).openDataSocket(FTPCmd.LIST, null);
+            if (socket == null) {
+                return -1;
+            }
+            final long elapsedNanos = System.nanoTime() - start;
+            socket.close();
+            // reads the reply of the abandoned listing,
+            // transfer complete or aborted depending on the server
+            session.completePendingCommand();
+            return elapsedNanos;
+        } finally {
+            session.setDataTimeout(dataTimeout);
+            session.setConnectTimeout(connectTimeout);
+            session.setSoTimeout(soTimeout);
+        }
+    }
+
+    private void applyDataConnectionMode(DataConnectionMode mode) {
+        if (mode == DataConnectionMode.ACTIVE) {
+            session.enterLocalActiveMode();
+            session.setActivePortRange(activeMinPort, activeMaxPort);
+        } else {
+            session.enterLocalPassiveMode();
+            session.setUseEPSVwithIPv4(mode == DataConnectionMode.EXTENDED_PASSIVE);
+        }
+    }
+
+    private void changeWorkingDirectory(String remotePath) {
+        try {
+            session.changeWorkingDirectory(remotePath);
+            checkReplyCode();
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        }
+    }
+
+    /* Resolves path against base, both relative to the login directory
+       unless absolute, collapsing "." and "name/.." segments so that the
+       result does not grow with the number of directory changes. As with
+       most servers, ".." is resolved by name, not by following links. */
+    private static String resolvePath(String base, String path) {
+        final Deque<String> segments = new ArrayDeque<>();
+        final boolean absolute = path.startsWith("/") || base != null && base.startsWith("/");
+        final String joined = path.startsWith("/") || base == null ? path : base + "/" + path;
+        for (String segment : joined.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..") && !segments.isEmpty() && !segments.peekLast().equals("..")) {
+                segments.removeLast();
+            } else if (!segment.equals("..") || !absolute) {
+                segments.addLast(segment);
+            }
+        }
+        final String resolved = String.join("/", segments);
+        if (absolute) {
+            return "/" + resolved;
+        }
+        return resolved.isEmpty() ? "." : resolved;
+    }
+
+    private FTPClient newSession() {
+        if (tlsMode == TlsMode.NONE) {
+            return new FtpSession();
+        }
+        if (tlsSessionReuse && !FtpsSession.isSessionReuseSupported()) {
+            throw new FtpClientException("TLS session reuse requires JVM options "
+                    + "--add-opens java.base/sun.security.ssl=ALL-UNNAMED "
+                    + "--add-opens java.base/sun.security.util=ALL-UNNAMED");
+        }
+        final FtpsSession ftpsSession = new FtpsSession(
+                tlsMode == TlsMode.IMPLICIT, getSslContext(), tlsSessionReuse);
+        if (hostnameVerifier != null) {
+            ftpsSession.setHostnameVerifier(hostnameVerifier);
+        } else {
+            ftpsSession.setEndpointCheckingEnabled(true);
+        }
+        if (tlsProtocols != null) {
+            ftpsSession.setEnabledProtocols(tlsProtocols);
+        }
+        if (tlsCipherSuites != null) {
+            ftpsSession.setEnabledCipherSuites(tlsCipherSuites);
+        }
+        return ftpsSession;
+    }
+
+    private SSLContext getSslContext() {
+        if (sslContext != null) {
+            return sslContext;
+        }
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new FtpClientException(e);
+        }
+    }
+
+    private void warmUpSession() {
+        if (!isConnected()) {
+            openSession();
+        }
+        serverFeatures();
+    }
+
+    private void disconnect() {
+        try {
+            if (isConnected()) {
+                try {
+                    session.disconnect();
+                    session = null;
+                } catch (IOException e) {
+                    throw new FtpClientException(e);
+                }
+            }
+        } finally {
+            releaseSessionPermit();
+        }
+    }
+
+    private void acquireSessionPermit() {
+        if (governor != null && sessionPermitHost == null) {
+            governor.acquireSession(host);
+            sessionPermitHost = host;
+        }
+    }
+
+    private void releaseSessionPermit() {
+        if (sessionPermitHost != null) {
+            governor.releaseSession(sessionPermitHost);
+            sessionPermitHost = null;
+        }
+    }
+
+    private InputStream throttle(InputStream inputStream) {
+        return governor != null ? governor.throttle(host, inputStream) : inputStream;
+    }
+
+    private OutputStream throttle(OutputStream outputStream) {
+        return governor != null ? governor.throttle(host, outputStream) : outputStream;
+    }
+
+    private void discardSession() {
+        try {
+            disconnect();
+        } catch (FtpClientException e) {
+            // session is dead, nothing left to close
+        }
+        session = null;
+    }
+
+    private Set<String> serverFeatures() {
+        final String key = serverKey();
+        final Set<String> features = SERVER_FEATURES.get(key);
+        if (features != null) {
+            return features;
+        }
+        // fetch outside of the map, FEAT must not block other servers' entries
+        final Set<String> fetched = fetchFeatures();
+        final Set<String> raced = SERVER_FEATURES.putIfAbsent(key, fetched);
+        return raced != null ? raced : fetched;
+    }
+
+    private Set<String> fetchFeatures() {
+        try {
+            if (!session.features()) {
+                return Collections.emptySet();
+            }
+            final Set<String> features = new HashSet<>();
+            for (String line : session.getReplyStrings()) {
+                // feature lines are indented by a single space, RFC 2389
+                if (line.startsWith(" ")) {
+                    features.add(line.trim());
+                }
+            }
+            return Collections.unmodifiableSet(features);
+        } catch (IOException e) {
+            throw new FtpClientException(e);
+        }
+    }
+
+    private String serverKey() {
+        if (port != null) {
+            return host + ":" + port;
+        }
+        return host + ":" + (tlsMode == TlsMode.IMPLICIT
+                ? FTPSClient.DEFAULT_FTPS_PORT : FTP.DEFAULT_PORT);
+    }
+
     private void checkReplyCode() {
         final int replyCode = session.getReplyCode();
         if (!FTPReply.isPositiveCompletion(replyCode)) {
             throw new FtpClientException(session.getReplyString());
         }
     }
+
+    /* Probes of an idle session, run in the background one interval apart
+       until stopped by the next request, which waits for a probe already
+       running. The session is handed between the request thread and the
+       probes through the monitor of this object, so that it is only ever
+       used by one thread at a time. */
+    private final class IdleChecks implements Runnable {
+        private final Executor delayedExecutor;
+        private boolean stopped = false;
+        private boolean running = false;
+
+        IdleChecks(Duration interval) {
+            delayedExecutor = CompletableFuture.delayedExecutor(
+                    interval.toNanos(), TimeUnit.NANOSECONDS, BACKGROUND_EXECUTOR);
+        }
+
+        void start() {
+            delayedExecutor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (stopped) {
+                    return;
+                }
+                running = true;
+            }
+            boolean connected = false;
+            try {
+                connected = checkIdleSession();
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    notifyAll();
+                    if (connected && !stopped) {
+                        start();
+                    }
+                }
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            boolean interrupted = false;
+            while (running) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the session must not be used before the probe is done
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
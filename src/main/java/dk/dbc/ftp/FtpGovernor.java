@@ -0,0 +1,202 @@
+package dk.dbc.ftp;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Governor limiting the number of concurrent sessions and the bandwidth
+ * used per FTP server host by all clients sharing it, keeping them below
+ * the limits enforced by the server (eg. 421 replies when exceeding the
+ * maximum number of connections).
+ * <p>
+ * Clients waiting for a session or for bandwidth are served in arrival
+ * order. Limits must be configured before the governor is first used
+ * for a host.
+ * </p>
+ * This class is thread-safe.
+ */
+public class FtpGovernor {
+    private volatile int maxSessions = Integer.MAX_VALUE;
+    private volatile long maxBytesPerSecond = 0;
+    private volatile Duration sessionTimeout = Duration.ofMinutes(5);
+    private final Map<String, Integer> maxSessionsPerHost = new ConcurrentHashMap<>();
+    private final Map<String, Long> maxBytesPerSecondPerHost = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, HostLimits> hostLimits = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSessions maximum number of concurrent sessions per host
+     * @return this governor
+     * @throws IllegalArgumentException if maxSessions is less than 1
+     */
+    public FtpGovernor withMaxSessions(int maxSessions) {
+        this.maxSessions = requirePositive(maxSessions);
+        return this;
+    }
+
+    /**
+     * @param host host to which the limit applies
+     * @param maxSessions maximum number of concurrent sessions to {@code host}
+     * @return this governor
+     * @throws IllegalArgumentException if maxSessions is less than 1
+     */
+    public FtpGovernor withMaxSessions(String host, int maxSessions) {
+        maxSessionsPerHost.put(host, requirePositive(maxSessions));
+        return this;
+    }
+
+    /**
+     * Sets how long a client waits for a session before connecting fails
+     * with {@link FtpClientException}, so that clients never closed do not
+     * block other clients forever. Defaults to five minutes.
+     * @param sessionTimeout maximum time to wait for a session
+     * @return this governor
+     */
+    public FtpGovernor withSessionTimeout(Duration sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+        return this;
+    }
+
+    /**
+     * @param maxBytesPerSecond maximum combined bandwidth of transfers
+     *                          per host, 0 for unlimited
+     * @return this governor
+     */
+    public FtpGovernor withMaxBytesPerSecond(long maxBytesPerSecond) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * @param host host to which the limit applies
+     * @param maxBytesPerSecond maximum combined bandwidth of transfers
+     *                          to and from {@code host}, 0 for unlimited
+     * @return this governor
+     */
+    public FtpGovernor withMaxBytesPerSecond(String host, long maxBytesPerSecond) {
+        maxBytesPerSecondPerHost.put(host, maxBytesPerSecond);
+        return this;
+    }
+
+    void acquireSession(String host) {
+        try {
+            if (!limitsOf(host).sessions.tryAcquire(sessionTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new FtpClientException(String.format(
+                        "timed out after %s waiting for session to %s", sessionTimeout, host));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FtpClientException(e);
+        }
+    }
+
+    void releaseSession(String host) {
+        limitsOf(host).sessions.release();
+    }
+
+    InputStream throttle(String host, InputStream inputStream) {
+        final TokenBucket bandwidth = limitsOf(host).bandwidth;
+        if (bandwidth == null) {
+            return inputStream;
+        }
+        return new ThrottledInputStream(inputStream, bandwidth);
+    }
+
+    OutputStream throttle(String host, OutputStream outputStream) {
+        final TokenBucket bandwidth = limitsOf(host).bandwidth;
+        if (bandwidth == null) {
+            return outputStream;
+        }
+        return new ThrottledOutputStream(outputStream, bandwidth);
+    }
+
+    /* a limit of no sessions would make every connect wait for sessionTimeout */
+    private static int requirePositive(int maxSessions) {
+        if (maxSessions < 1) {
+            throw new IllegalArgumentException("maxSessions must be positive, was " + maxSessions);
+        }
+        return maxSessions;
+    }
+
+    private HostLimits limitsOf(String host) {
+        return hostLimits.computeIfAbsent(host, key -> new HostLimits(
+                maxSessionsPerHost.getOrDefault(key, maxSessions),
+                maxBytesPerSecondPerHost.getOrDefault(key, maxBytesPerSecond)));
+    }
+
+    private static class HostLimits {
+        private final Semaphore sessions;
+        private final TokenBucket bandwidth;
+
+        HostLimits(int maxSessions, long maxBytesPerSecond) {
+            sessions = new Semaphore(maxSessions, true);
+            bandwidth = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond) : null;
+        }
+    }
+
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final TokenBucket bandwidth;
+
+        ThrottledInputStream(InputStream in, TokenBucket bandwidth) {
+            super(in);
+            this.bandwidth = bandwidth;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b != -1) {
+                acquire(bandwidth, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                acquire(bandwidth, read);
+            }
+            return read;
+        }
+    }
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+        private final TokenBucket bandwidth;
+
+        ThrottledOutputStream(OutputStream out, TokenBucket bandwidth) {
+            super(out);
+            this.bandwidth = bandwidth;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            acquire(bandwidth, 1);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            acquire(bandwidth, len);
+            out.write(b, off, len);
+        }
+    }
+
+    private static void acquire(TokenBucket bandwidth, int bytes) throws InterruptedIOException {
+        try {
+            bandwidth.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        }
+    }
+}
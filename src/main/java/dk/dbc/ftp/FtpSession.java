@@ -0,0 +1,48 @@
+package dk.dbc.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Plain FTP session
+ */
+class FtpSession extends FTPClient implements DataSocketSession {
+    private Runnable dataConnectionFailureListener;
+
+    @Override
+    public Socket openDataSocket(FTPCmd command, String arg) throws IOException {
+        return _openDataConnection_(command, arg);
+    }
+
+    @Override
+    public void setDataConnectionFailureListener(Runnable listener) {
+        dataConnectionFailureListener = listener;
+    }
+
+    @Override
+    protected Socket _openDataConnection_(String command, String arg) throws IOException {
+        final Socket socket;
+        try {
+            socket = super._openDataConnection_(command, arg);
+        } catch (FTPConnectionClosedException e) {
+            throw e;
+        } catch (IOException e) {
+            dataConnectionFailed();
+            throw e;
+        }
+        if (socket == null && DataSocketSession.isDataConnectionRefused(getReplyCode())) {
+            dataConnectionFailed();
+        }
+        return socket;
+    }
+
+    private void dataConnectionFailed() {
+        if (dataConnectionFailureListener != null) {
+            dataConnectionFailureListener.run();
+        }
+    }
+}
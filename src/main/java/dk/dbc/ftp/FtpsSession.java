@@ -0,0 +1,167 @@
+package dk.dbc.ftp;
+
+import org.apache.commons.net.ftp.FTPCmd;
+import org.apache.commons.net.ftp.FTPConnectionClosedException;
+import org.apache.commons.net.ftp.FTPSClient;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.util.Locale;
+
+/**
+ * FTPS session, optionally resuming the TLS session of the control
+ * connection on data connections.
+ * <p>
+ * Many servers (eg. vsftpd with require_ssl_reuse) demand that data
+ * connections resume the TLS session of the control connection, and
+ * resumption also spares a full handshake per transferred file. The JDK
+ * only resumes sessions cached under the host and port being connected
+ * to, so the session cached for the control connection is registered
+ * under the host and port of each data connection before the handshake.
+ * The cached session is used rather than the handshake session of the
+ * control connection, as only the former can be resumed with TLS 1.3.
+ * </p>
+ * <p>
+ * This relies on JDK internals, which are only looked up when session
+ * reuse is asked for. Java 9 to 15 permit the access by default, printing
+ * an illegal reflective access warning. Java 16 and later require
+ * {@code --add-opens java.base/sun.security.ssl=ALL-UNNAMED} and
+ * {@code --add-opens java.base/sun.security.util=ALL-UNNAMED},
+ * see {@link #isSessionReuseSupported()}.
+ * </p>
+ */
+class FtpsSession extends FTPSClient implements DataSocketSession {
+    private final boolean sessionReuse;
+    private Runnable dataConnectionFailureListener;
+
+    FtpsSession(boolean isImplicit, SSLContext sslContext, boolean sessionReuse) {
+        super(isImplicit, sslContext);
+        this.sessionReuse = sessionReuse;
+    }
+
+    /**
+     * @return true if the JDK internals needed for resuming TLS sessions
+     * on data connections are accessible, otherwise false
+     */
+    static boolean isSessionReuseSupported() {
+        return SessionCache.PUT != null;
+    }
+
+    @Override
+    public Socket openDataSocket(FTPCmd command, String arg) throws IOException {
+        return _openDataConnection_(command, arg);
+    }
+
+    @Override
+    public void setDataConnectionFailureListener(Runnable listener) {
+        dataConnectionFailureListener = listener;
+    }
+
+    @Override
+    protected Socket _openDataConnection_(String command, String arg) throws IOException {
+        final Socket socket;
+        try {
+            socket = super._openDataConnection_(command, arg);
+        } catch (FTPConnectionClosedException e) {
+            throw e;
+        } catch (IOException e) {
+            dataConnectionFailed();
+            throw e;
+        }
+        if (socket == null && DataSocketSession.isDataConnectionRefused(getReplyCode())) {
+            dataConnectionFailed();
+        }
+        return socket;
+    }
+
+    private void dataConnectionFailed() {
+        if (dataConnectionFailureListener != null) {
+            dataConnectionFailureListener.run();
+        }
+    }
+
+    @Override
+    protected void _prepareDataSocket_(Socket socket) throws IOException {
+        if (!sessionReuse || !(socket instanceof SSLSocket)
+                || !(_socket_ instanceof SSLSocket)) {
+            return;
+        }
+        final SSLSession controlSession = ((SSLSocket) _socket_).getSession();
+        if (!controlSession.isValid()) {
+            return;
+        }
+        final SSLSessionContext context = controlSession.getSessionContext();
+        if (!isSessionReuseSupported() || context == null
+                || !SessionCache.FIELD.getDeclaringClass().isInstance(context)) {
+            throw new IOException("TLS session reuse is not supported by session context "
+                    + (context != null ? context.getClass().getName() : null));
+        }
+        try {
+            final Object cache = SessionCache.FIELD.get(context);
+            // with TLS 1.3 only the session cached on receiving a session
+            // ticket is resumable, with TLS 1.2 it is the control session
+            Object session = SessionCache.GET.invoke(cache,
+                    key(controlSession.getPeerHost(), controlSession.getPeerPort()));
+            if (session == null) {
+                session = controlSession;
+            }
+            // the JDK looks the session up by host name if the data
+            // address carries one, otherwise by host address
+            final InetAddress address = socket.getInetAddress();
+            SessionCache.PUT.invoke(cache, key(address.getHostAddress(), socket.getPort()), session);
+            final String hostName = address.toString().substring(0, address.toString().indexOf('/'));
+            if (!hostName.isEmpty()) {
+                SessionCache.PUT.invoke(cache, key(hostName, socket.getPort()), session);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("unable to reuse TLS session on data connection", e);
+        }
+    }
+
+    /* cache key as computed by the JDK session context */
+    private static String key(String host, int port) {
+        return (host + ":" + port).toLowerCase(Locale.ENGLISH);
+    }
+
+    /* Session cache of the JDK session context and its accessors, null if
+       not accessible. Held in a nested class so that the lookup only runs
+       once session reuse is asked for. */
+    private static final class SessionCache {
+        private static final Field FIELD;
+        private static final Method GET;
+        private static final Method PUT;
+
+        static {
+            Field field = null;
+            Method get = null;
+            Method put = null;
+            try {
+                final SSLSessionContext context = SSLContext.getDefault().getClientSessionContext();
+                field = context.getClass().getDeclaredField("sessionHostPortCache");
+                field.setAccessible(true);
+                final Class<?> cacheClass = field.get(context).getClass();
+                get = cacheClass.getDeclaredMethod("get", Object.class);
+                get.setAccessible(true);
+                put = cacheClass.getDeclaredMethod("put", Object.class, Object.class);
+                put.setAccessible(true);
+            } catch (GeneralSecurityException | ReflectiveOperationException | RuntimeException e) {
+                field = null;
+                get = null;
+                put = null;
+            }
+            FIELD = field;
+            GET = get;
+            PUT = put;
+        }
+
+        private SessionCache() {}
+    }
+}
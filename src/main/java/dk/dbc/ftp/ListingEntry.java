@@ -0,0 +1,105 @@
+package dk.dbc.ftp;
+
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.nio.charset.Charset;
+
+/**
+ * Compact representation of a single listing entry holding the raw bytes
+ * of the listing line. The name and size are decoded from the raw bytes
+ * on first access.
+ */
+public final class ListingEntry {
+    private final byte[] line;
+    private final Charset charset;
+    private final int type;
+    private final int sizeOffset;
+    private final int sizeLength;
+    private final int nameOffset;
+    private final int nameLength;
+    private String name;
+    private long size = Long.MIN_VALUE;
+
+    /**
+     * @param line raw bytes of listing line, owned by this entry
+     * @param charset charset of name
+     * @param type type of entry, one of the {@link FTPFile} type constants
+     * @param sizeOffset offset of size in line
+     * @param sizeLength length of size, 0 if unknown
+     * @param nameOffset offset of name in line
+     * @param nameLength length of name
+     */
+    public ListingEntry(byte[] line, Charset charset, int type,
+                        int sizeOffset, int sizeLength, int nameOffset, int nameLength) {
+        this.line = line;
+        this.charset = charset;
+        this.type = type;
+        this.sizeOffset = sizeOffset;
+        this.sizeLength = sizeLength;
+        this.nameOffset = nameOffset;
+        this.nameLength = nameLength;
+    }
+
+    public String getName() {
+        if (name == null) {
+            name = new String(line, nameOffset, nameLength, charset);
+        }
+        return name;
+    }
+
+    /**
+     * @return size in bytes, or -1 if unknown
+     */
+    public long getSize() {
+        if (size == Long.MIN_VALUE) {
+            size = parseSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return type of entry, one of the {@link FTPFile} type constants
+     */
+    public int getType() {
+        return type;
+    }
+
+    public boolean isFile() {
+        return type == FTPFile.FILE_TYPE;
+    }
+
+    public boolean isDirectory() {
+        return type == FTPFile.DIRECTORY_TYPE;
+    }
+
+    public boolean isSymbolicLink() {
+        return type == FTPFile.SYMBOLIC_LINK_TYPE;
+    }
+
+    /**
+     * @return the listing line as sent by the server
+     */
+    public String getRawListing() {
+        return new String(line, charset);
+    }
+
+    @Override
+    public String toString() {
+        return getRawListing();
+    }
+
+    private long parseSize() {
+        if (sizeLength == 0) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = sizeOffset; i < sizeOffset + sizeLength; i++) {
+            final int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+}
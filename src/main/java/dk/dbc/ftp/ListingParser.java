@@ -0,0 +1,37 @@
+package dk.dbc.ftp;
+
+import java.nio.charset.Charset;
+
+/**
+ * Parser for lines of LIST replies in a fixed, known format, working
+ * directly on the received bytes
+ * @see FtpClient#withListingParser(ListingParser)
+ */
+@FunctionalInterface
+public interface ListingParser {
+    /**
+     * Parses a single listing line. The bytes of {@code line} are only
+     * valid during the call, so the parser must copy what it keeps.
+     * @param line buffer holding the line
+     * @param offset offset of line in buffer
+     * @param length length of line without line terminator
+     * @param charset charset of names in the listing
+     * @return listing entry, or null if the line is not an entry,
+     * eg. the "total" line of Unix listings
+     */
+    ListingEntry parse(byte[] line, int offset, int length, Charset charset);
+
+    /**
+     * Parses only the name of a single listing line. Parsers should
+     * override this to decode the name without creating an entry.
+     * @param line buffer holding the line
+     * @param offset offset of line in buffer
+     * @param length length of line without line terminator
+     * @param charset charset of names in the listing
+     * @return name of entry, or null if the line is not an entry
+     */
+    default String parseName(byte[] line, int offset, int length, Charset charset) {
+        final ListingEntry entry = parse(line, offset, length, charset);
+        return entry != null ? entry.getName() : null;
+    }
+}
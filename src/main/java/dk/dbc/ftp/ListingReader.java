@@ -0,0 +1,67 @@
+package dk.dbc.ftp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits a raw listing into lines, handing each line to a
+ * {@link LineHandler} directly from the read buffer
+ */
+class ListingReader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @FunctionalInterface
+    interface LineHandler {
+        /**
+         * @param line buffer holding the line, only valid during the call
+         * @param offset offset of line in buffer
+         * @param length length of line without line terminator
+         * @param charset charset of the listing
+         */
+        void handle(byte[] line, int offset, int length, Charset charset);
+    }
+
+    private ListingReader() {}
+
+    static void read(InputStream inputStream, Charset charset, LineHandler lineHandler)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int limit = 0;
+        int scanned = 0;
+        while (true) {
+            int lineStart = 0;
+            for (; scanned < limit; scanned++) {
+                if (buffer[scanned] == '\n') {
+                    handleLine(buffer, lineStart, scanned, charset, lineHandler);
+                    lineStart = scanned + 1;
+                }
+            }
+            if (lineStart > 0) {
+                System.arraycopy(buffer, lineStart, buffer, 0, limit - lineStart);
+                limit -= lineStart;
+                scanned = limit;
+            } else if (limit == buffer.length) {
+                // line longer than buffer
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            final int read = inputStream.read(buffer, limit, buffer.length - limit);
+            if (read == -1) {
+                break;
+            }
+            limit += read;
+        }
+        handleLine(buffer, 0, limit, charset, lineHandler);
+    }
+
+    private static void handleLine(byte[] buffer, int start, int end, Charset charset,
+                                   LineHandler lineHandler) {
+        if (end > start && buffer[end - 1] == '\r') {
+            end--;
+        }
+        if (end > start) {
+            lineHandler.handle(buffer, start, end - start, charset);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package dk.dbc.ftp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket limiting throughput to a number of bytes per second,
+ * allowing bursts of up to one second worth of bytes.
+ * Callers are served in arrival order.
+ */
+class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long bytesPerSecond;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private double tokens;
+    private long lastRefill;
+
+    TokenBucket(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        tokens = bytesPerSecond;
+        lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes {@code bytes} tokens from the bucket, blocking until the
+     * bucket has been refilled if it runs into debt. The lock is held
+     * while waiting, so that waiting callers queue up fairly.
+     * @param bytes number of bytes about to be transferred
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void acquire(int bytes) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            final long now = System.nanoTime();
+            tokens = Math.min(bytesPerSecond,
+                    tokens + (double) (now - lastRefill) * bytesPerSecond / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= bytes;
+            if (tokens < 0) {
+                TimeUnit.NANOSECONDS.sleep((long) (-tokens * NANOS_PER_SECOND / bytesPerSecond));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
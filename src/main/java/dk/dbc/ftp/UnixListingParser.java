@@ -0,0 +1,191 @@
+package dk.dbc.ftp;
+
+import org.apache.commons.net.ftp.FTPFile;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Parser for Unix style listings as produced by {@code ls -l}, eg.
+ * <pre>
+ * -rw-r--r--   1 owner    group         16 Jan 01 12:00 file.txt
+ * crw-rw-rw-   1 root     root       1,   3 Jan 01 12:00 null
+ * </pre>
+ * The name follows the date, found as a day of month between a month
+ * name and a time or year, so that listings without a group column and
+ * device files listing "major, minor" in place of the size are parsed as
+ * well. The size of device files is unknown. Lines without a date, such
+ * as the leading "total" line, are skipped. Names of symbolic links
+ * exclude the link target.
+ */
+public final class UnixListingParser implements ListingParser {
+    /* index of the first field that may hold the day of month,
+       following permissions, links, owner, size and month */
+    private static final int FIRST_DAY_FIELD = 5;
+    private static final byte[] LINK_ARROW = {' ', '-', '>', ' '};
+    private static final byte[] COMMA = {','};
+
+    @Override
+    public ListingEntry parse(byte[] line, int offset, int length, Charset charset) {
+        final int end = offset + length;
+        final int dayStart = findDay(line, offset, end);
+        final int nameStart = nameStart(line, dayStart, end);
+        if (nameStart < 0) {
+            return null;
+        }
+        final int type = typeOf(line[offset]);
+        final int nameEnd = nameEnd(line, nameStart, end, type);
+        // the size precedes the month, unless it is "major, minor" of a device
+        final int monthStart = fieldStartBefore(line, offset, dayStart);
+        final int sizeStart = fieldStartBefore(line, offset, monthStart);
+        int sizeEnd = fieldEnd(line, sizeStart, end);
+        final int previousEnd = skipBlanksBefore(line, offset, sizeStart);
+        if (indexOf(line, sizeStart, sizeEnd, COMMA) >= 0
+                || previousEnd > offset && line[previousEnd - 1] == ',') {
+            sizeEnd = sizeStart;
+        }
+        return new ListingEntry(Arrays.copyOfRange(line, offset, end), charset, type,
+                sizeStart - offset, sizeEnd - sizeStart, nameStart - offset, nameEnd - nameStart);
+    }
+
+    /**
+     * Decodes only the name, without copying the line
+     */
+    @Override
+    public String parseName(byte[] line, int offset, int length, Charset charset) {
+        final int end = offset + length;
+        final int nameStart = nameStart(line, findDay(line, offset, end), end);
+        if (nameStart < 0) {
+            return null;
+        }
+        final int nameEnd = nameEnd(line, nameStart, end, typeOf(line[offset]));
+        return new String(line, nameStart, nameEnd - nameStart, charset);
+    }
+
+    /* Returns the start of the day of month field, the first field of one
+       or two digits preceded by a non-numeric month and followed by a time
+       or year, or -1 if the line has no date */
+    private static int findDay(byte[] line, int offset, int end) {
+        int field = 0;
+        int previousStart = offset;
+        int previousEnd = offset;
+        int pos = skipBlanks(line, offset, end);
+        while (pos < end) {
+            final int fieldEnd = fieldEnd(line, pos, end);
+            if (field >= FIRST_DAY_FIELD && fieldEnd - pos <= 2 && isDigits(line, pos, fieldEnd)
+                    && !isDigits(line, previousStart, previousEnd)) {
+                final int nextStart = skipBlanks(line, fieldEnd, end);
+                if (isTimeOrYear(line, nextStart, fieldEnd(line, nextStart, end))) {
+                    return pos;
+                }
+            }
+            previousStart = pos;
+            previousEnd = fieldEnd;
+            pos = skipBlanks(line, fieldEnd, end);
+            field++;
+        }
+        return -1;
+    }
+
+    /* the name follows the time or year after a single blank
+       and may itself start with blanks */
+    private static int nameStart(byte[] line, int dayStart, int end) {
+        if (dayStart < 0) {
+            return -1;
+        }
+        final int nameStart = fieldEnd(line, skipBlanks(line, fieldEnd(line, dayStart, end), end), end) + 1;
+        return nameStart < end ? nameStart : -1;
+    }
+
+    private static int nameEnd(byte[] line, int nameStart, int end, int type) {
+        if (type == FTPFile.SYMBOLIC_LINK_TYPE) {
+            final int arrow = indexOf(line, nameStart, end, LINK_ARROW);
+            if (arrow > nameStart) {
+                return arrow;
+            }
+        }
+        return end;
+    }
+
+    /* hh:mm, h:mm or yyyy */
+    private static boolean isTimeOrYear(byte[] line, int start, int end) {
+        final int length = end - start;
+        if (length == 4 && isDigits(line, start, end)) {
+            return true;
+        }
+        return (length == 4 || length == 5) && line[end - 3] == ':'
+                && isDigits(line, start, end - 3) && isDigits(line, end - 2, end);
+    }
+
+    private static boolean isDigits(byte[] line, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (line[i] < '0' || line[i] > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipBlanks(byte[] line, int pos, int end) {
+        while (pos < end && isBlank(line[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int fieldEnd(byte[] line, int pos, int end) {
+        while (pos < end && !isBlank(line[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipBlanksBefore(byte[] line, int offset, int pos) {
+        while (pos > offset && isBlank(line[pos - 1])) {
+            pos--;
+        }
+        return pos;
+    }
+
+    /* start of the field preceding the field starting at pos */
+    private static int fieldStartBefore(byte[] line, int offset, int pos) {
+        pos = skipBlanksBefore(line, offset, pos);
+        while (pos > offset && !isBlank(line[pos - 1])) {
+            pos--;
+        }
+        return pos;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    private static int typeOf(byte b) {
+        switch (b) {
+            case '-':
+                return FTPFile.FILE_TYPE;
+            case 'd':
+                return FTPFile.DIRECTORY_TYPE;
+            case 'l':
+                return FTPFile.SYMBOLIC_LINK_TYPE;
+            default:
+                return FTPFile.UNKNOWN_TYPE;
+        }
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte[] pattern) {
+        outer:
+        for (int i = from; i <= to - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt
+ */
+
+package dk.dbc.ftp;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockftpserver.core.command.CommandHandler;
+import org.mockftpserver.core.command.CommandNames;
+import org.mockftpserver.fake.FakeFtpServer;
+import org.mockftpserver.fake.UserAccount;
+import org.mockftpserver.fake.filesystem.DirectoryEntry;
+import org.mockftpserver.fake.filesystem.FileSystem;
+import org.mockftpserver.fake.filesystem.UnixFakeFileSystem;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests selection of {@link FtpClient.DataConnectionMode#AUTO}. The chosen
+ * mode is remembered per server, so each test runs its own server. The
+ * server is reached through 127.0.0.1, so that passive mode uses PASV and
+ * active mode uses PORT, as EPSV and EPRT are always used over IPv6.
+ */
+class AutoDataConnectionModeTest {
+    private static final String USERNAME = "AutoDataConnectionModeTest";
+    private static final String PASSWORD = "AutoDataConnectionModeTestPass";
+    private static final String HOME_DIR = "/home/ftp";
+    private static final List<String> DATA_CONNECTION_COMMANDS = List.of(
+            CommandNames.EPSV, CommandNames.PASV, CommandNames.PORT, CommandNames.EPRT);
+
+    private FakeFtpServer fakeFtpServer;
+    private final List<String> receivedCommands = new CopyOnWriteArrayList<>();
+    private final Set<String> refusedCommands = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> delayedCommands = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void startFakeFtpServer() {
+        fakeFtpServer = new FakeFtpServer();
+        fakeFtpServer.setServerControlPort(0);  // use any free port
+        fakeFtpServer.addUserAccount(new UserAccount(USERNAME, PASSWORD, HOME_DIR));
+
+        final FileSystem fileSystem = new UnixFakeFileSystem();
+        fileSystem.add(new DirectoryEntry(HOME_DIR));
+        fakeFtpServer.setFileSystem(fileSystem);
+
+        // records, refuses or delays commands setting up data connections
+        for (String name : DATA_CONNECTION_COMMANDS) {
+            final CommandHandler handler = fakeFtpServer.getCommandHandler(name);
+            fakeFtpServer.setCommandHandler(name, (command, session) -> {
+                receivedCommands.add(name);
+                if (refusedCommands.contains(name)) {
+                    session.sendReply(502, "Command not implemented");
+                    return;
+                }
+                Thread.sleep(delayedCommands.getOrDefault(name, 0L));
+                handler.handleCommand(command, session);
+            });
+        }
+
+        fakeFtpServer.start();
+    }
+
+    @AfterEach
+    void stopFakeFtpServer() {
+        fakeFtpServer.stop();
+    }
+
+    @Test
+    void picksFastestMode() {
+        delayedCommands.put(CommandNames.PASV, 300L);
+        delayedCommands.put(CommandNames.PORT, 300L);
+        put("probing.txt");
+
+        receivedCommands.clear();
+        put("probed.txt");
+
+        assertThat("extended passive mode used", receivedCommands, hasItem(CommandNames.EPSV));
+        assertThat("passive mode not probed again", receivedCommands, not(hasItem(CommandNames.PASV)));
+        assertThat("active mode not probed again", receivedCommands, not(hasItem(CommandNames.PORT)));
+    }
+
+    @Test
+    void skipsRefusedModes() {
+        refusedCommands.add(CommandNames.EPSV);
+        refusedCommands.add(CommandNames.PASV);
+        put("probing.txt");
+
+        receivedCommands.clear();
+        put("probed.txt");
+
+        assertThat("active mode used", receivedCommands, is(List.of(CommandNames.PORT)));
+    }
+
+    @Test
+    void probesAgainWhenRememberedModeFails() {
+        refusedCommands.add(CommandNames.EPSV);
+        refusedCommands.add(CommandNames.PASV);
+        put("probing.txt");
+
+        // active mode stops working, eg. after a firewall change
+        refusedCommands.clear();
+        refusedCommands.add(CommandNames.PORT);
+        final FtpClient ftpClient = newFtpClient();
+        try {
+            assertThrows(FtpClientException.class, () -> ftpClient.put("failing.txt", "content"));
+        } finally {
+            ftpClient.close();
+        }
+
+        receivedCommands.clear();
+        put("probing_again.txt");
+
+        assertThat("extended passive mode probed again", receivedCommands, hasItem(CommandNames.EPSV));
+        assertThat("passive mode probed again", receivedCommands, hasItem(CommandNames.PASV));
+    }
+
+    private void put(String filename) {
+        newFtpClient()
+                .put(filename, "testing data connection mode")
+                .close();
+        assertThat(filename + " stored",
+                fakeFtpServer.getFileSystem().exists(HOME_DIR + "/" + filename), is(true));
+    }
+
+    private FtpClient newFtpClient() {
+        return new FtpClient()
+                .withHost("127.0.0.1")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withDataConnectionMode(FtpClient.DataConnectionMode.AUTO);
+    }
+}
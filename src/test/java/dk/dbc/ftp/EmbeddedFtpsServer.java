@@ -0,0 +1,194 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt
+ */
+
+package dk.dbc.ftp;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.UserManager;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.ssl.SslConfigurationFactory;
+import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedTrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Embedded FTP server accepting plain FTP and explicit FTPS (AUTH TLS)
+ * on one port and implicit FTPS on another, using the self-signed
+ * localhost certificate in ftps.p12
+ */
+class EmbeddedFtpsServer {
+    static final String USERNAME = "FtpsClientTest";
+    static final String PASSWORD = "FtpsClientTestPass";
+    private static final Path KEYSTORE = Paths.get("src/test/resources/ftps.p12");
+    private static final String KEYSTORE_PASSWORD = "ftpsTestPass";
+
+    private final FtpServer server;
+    private final int port;
+    private final int implicitPort;
+    private final Path homeDirectory;
+
+    EmbeddedFtpsServer() throws IOException, FtpException {
+        homeDirectory = Files.createTempDirectory("ftps");
+        port = freePort();
+        implicitPort = freePort();
+
+        final SslConfigurationFactory sslConfigurationFactory = new SslConfigurationFactory();
+        sslConfigurationFactory.setKeystoreFile(KEYSTORE.toFile());
+        sslConfigurationFactory.setKeystoreType("PKCS12");
+        sslConfigurationFactory.setKeystorePassword(KEYSTORE_PASSWORD);
+        sslConfigurationFactory.setKeyPassword(KEYSTORE_PASSWORD);
+
+        final ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setPort(port);
+        listenerFactory.setSslConfiguration(sslConfigurationFactory.createSslConfiguration());
+        listenerFactory.setImplicitSsl(false);
+
+        final ListenerFactory implicitListenerFactory = new ListenerFactory();
+        implicitListenerFactory.setPort(implicitPort);
+        implicitListenerFactory.setSslConfiguration(sslConfigurationFactory.createSslConfiguration());
+        implicitListenerFactory.setImplicitSsl(true);
+
+        final UserManager userManager = new PropertiesUserManagerFactory().createUserManager();
+        final BaseUser user = new BaseUser();
+        user.setName(USERNAME);
+        user.setPassword(PASSWORD);
+        user.setHomeDirectory(homeDirectory.toString());
+        user.setAuthorities(List.of(new WritePermission()));
+        userManager.save(user);
+
+        final FtpServerFactory serverFactory = new FtpServerFactory();
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.addListener("implicit", implicitListenerFactory.createListener());
+        serverFactory.setUserManager(userManager);
+        server = serverFactory.createServer();
+        server.start();
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    int getImplicitPort() {
+        return implicitPort;
+    }
+
+    Path getHomeDirectory() {
+        return homeDirectory;
+    }
+
+    void stop() {
+        server.stop();
+    }
+
+    /**
+     * @return SSL context trusting the certificate of this server
+     */
+    static SSLContext trustingSslContext() throws IOException, GeneralSecurityException {
+        return trustingSslContext(new AtomicInteger());
+    }
+
+    /**
+     * @param fullHandshakes counter incremented on each full handshake,
+     *                       resumed sessions skip the server certificate check
+     * @return SSL context trusting the certificate of this server
+     */
+    static SSLContext trustingSslContext(AtomicInteger fullHandshakes)
+            throws IOException, GeneralSecurityException {
+        final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream inputStream = Files.newInputStream(KEYSTORE)) {
+            keyStore.load(inputStream, KEYSTORE_PASSWORD.toCharArray());
+        }
+        final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(
+                TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+        final X509ExtendedTrustManager trustManager =
+                (X509ExtendedTrustManager) trustManagerFactory.getTrustManagers()[0];
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[] {
+                new CountingTrustManager(trustManager, fullHandshakes)}, null);
+        return sslContext;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            return serverSocket.getLocalPort();
+        }
+    }
+
+    private static class CountingTrustManager extends X509ExtendedTrustManager {
+        private final X509ExtendedTrustManager trustManager;
+        private final AtomicInteger serverChecks;
+
+        CountingTrustManager(X509ExtendedTrustManager trustManager, AtomicInteger serverChecks) {
+            this.trustManager = trustManager;
+            this.serverChecks = serverChecks;
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            serverChecks.incrementAndGet();
+            trustManager.checkServerTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            serverChecks.incrementAndGet();
+            trustManager.checkServerTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            serverChecks.incrementAndGet();
+            trustManager.checkServerTrusted(chain, authType);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, Socket socket)
+                throws CertificateException {
+            trustManager.checkClientTrusted(chain, authType, socket);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType, SSLEngine engine)
+                throws CertificateException {
+            trustManager.checkClientTrusted(chain, authType, engine);
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType)
+                throws CertificateException {
+            trustManager.checkClientTrusted(chain, authType);
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return trustManager.getAcceptedIssuers();
+        }
+    }
+}
@@ -11,6 +11,8 @@ import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockftpserver.core.command.CommandHandler;
+import org.mockftpserver.core.command.CommandNames;
 import org.mockftpserver.fake.FakeFtpServer;
 import org.mockftpserver.fake.UserAccount;
 import org.mockftpserver.fake.filesystem.DirectoryEntry;
@@ -26,14 +28,20 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -146,6 +154,79 @@ class FtpClientTest {
                 is(fileContent));
     }
 
+    @Test
+    void putCharSequence() {
+        final String filename = "put_charsequence_with_remote.txt";
+        final StringBuilder fileContent = new StringBuilder();
+        while (fileContent.length() < 200000) {
+            fileContent.append("testing put char sequence æøå ").append(fileContent.length()).append("\n");
+        }
+
+        new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .cd(PUT_DIR)
+                .put(filename, fileContent, FtpClient.FileType.BINARY)
+                .close();
+
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent.toString()));
+    }
+
+    @Test
+    void putContentWriter() {
+        final String filename = "put_contentwriter_with_remote.txt";
+        final StringBuilder fileContent = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            fileContent.append("record ").append(i).append(" æøå\n");
+        }
+
+        new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .cd(PUT_DIR)
+                .put(filename, writer -> {
+                    for (int i = 0; i < 10000; i++) {
+                        writer.write("record " + i + " æøå\n");
+                    }
+                }, FtpClient.FileType.BINARY)
+                .close();
+
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent.toString()));
+    }
+
+    @Test
+    void putContentWriter_failingCallback() {
+        final String filename = "put_string_after_failed_contentwriter.txt";
+        final String fileContent = "testing put string after failed content writer";
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .cd(PUT_DIR);
+        try {
+            assertThrows(FtpClientException.class, () ->
+                    ftpClient.put("put_failed_contentwriter.txt", writer -> {
+                        writer.write("partial content");
+                        throw new IOException("content not available");
+                    }));
+
+            // the session is reopened in the same directory
+            ftpClient.put(filename, fileContent);
+        } finally {
+            ftpClient.close();
+        }
+
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent));
+    }
+
     @Test
     void putStringRemoteNull() {
         final String filename = null;
@@ -353,6 +434,264 @@ class FtpClientTest {
         assertThat("filename 2", filenames.get(1), is("put_file.txt"));
     }
 
+    @Test
+    void preConnect() {
+        final String filename = "put_string_preconnected.txt";
+        final String fileContent = "testing put string after pre-connect";
+
+        new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .preConnect()
+                .cd(PUT_DIR)
+                .put(filename, fileContent)
+                .close();
+
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent));
+    }
+
+    @Test
+    void preConnect_failsOnDemand() {
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword("wrong password")
+                .preConnect();
+
+        assertThrows(FtpClientException.class, () -> ftpClient.cd(PUT_DIR));
+    }
+
+    @Test
+    void idleCheck() {
+        final String filename = "put_string_idle_checked.txt";
+        final String fileContent = "testing put string with idle check";
+
+        new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withIdleCheck(Duration.ofMillis(50))
+                .cd(PUT_DIR)
+                .put(filename, fileContent)
+                .close();
+
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent));
+    }
+
+    @Test
+    void idleCheck_notPositive() {
+        assertThrows(IllegalArgumentException.class, () -> new FtpClient().withIdleCheck(Duration.ZERO));
+    }
+
+    @Test
+    void idleCheck_reconnectsDroppedSession() throws InterruptedException {
+        final String filename = "put_string_after_drop.txt";
+        final String fileContent = "testing put string after dropped session";
+        final CommandHandler noopHandler = fakeFtpServer.getCommandHandler(CommandNames.NOOP);
+        final CountDownLatch dropped = new CountDownLatch(1);
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withIdleCheck(Duration.ofMillis(50))
+                .cd(PUT_DIR);
+        try {
+            // drop the session server-side when probed
+            fakeFtpServer.setCommandHandler(CommandNames.NOOP, (command, session) -> {
+                session.sendReply(421, "Service not available, closing control connection");
+                session.close();
+                dropped.countDown();
+            });
+            // probed in the background, without any request being made
+            assertThat("idle session probed", dropped.await(10, TimeUnit.SECONDS), is(true));
+            fakeFtpServer.setCommandHandler(CommandNames.NOOP, noopHandler);
+
+            // reconnected in the background, in the same directory
+            ftpClient.put(filename, fileContent);
+        } finally {
+            fakeFtpServer.setCommandHandler(CommandNames.NOOP, noopHandler);
+            ftpClient.close();
+        }
+
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent));
+    }
+
+    @Test
+    void features_cachedPerServer() {
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .warmUp();
+        final FtpClient anotherFtpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD);
+        try {
+            assertThat(anotherFtpClient.features(), is(sameInstance(ftpClient.features())));
+        } finally {
+            ftpClient.close();
+            anotherFtpClient.close();
+        }
+    }
+
+    @Test
+    void explicitTls_serverWithoutTlsSupport() {
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withTlsMode(FtpClient.TlsMode.EXPLICIT);
+
+        assertThrows(FtpClientException.class, ftpClient::connect);
+    }
+
+    @Test
+    void governor_limitsSessions() throws Exception {
+        final String filename = "put_string_governed.txt";
+        final String fileContent = "testing put string with governor";
+        final FtpGovernor governor = new FtpGovernor().withMaxSessions(1);
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withGovernor(governor)
+                .connect();
+
+        final CompletableFuture<Void> waitingTransfer = CompletableFuture.runAsync(() ->
+                new FtpClient()
+                        .withHost("localhost")
+                        .withPort(fakeFtpServer.getServerControlPort())
+                        .withUsername(USERNAME)
+                        .withPassword(PASSWORD)
+                        .withGovernor(governor)
+                        .cd(PUT_DIR)
+                        .put(filename, fileContent)
+                        .close());
+        assertThrows(TimeoutException.class, () -> waitingTransfer.get(500, TimeUnit.MILLISECONDS),
+                "transfer waits for session");
+
+        ftpClient.close();
+        waitingTransfer.get(10, TimeUnit.SECONDS);
+        assertThat(getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                is(fileContent));
+    }
+
+    @Test
+    void governor_maxSessionsNotPositive() {
+        assertThrows(IllegalArgumentException.class, () -> new FtpGovernor().withMaxSessions(0));
+        assertThrows(IllegalArgumentException.class, () -> new FtpGovernor().withMaxSessions("localhost", -1));
+    }
+
+    @Test
+    void governor_sessionTimeout() {
+        final FtpGovernor governor = new FtpGovernor()
+                .withMaxSessions(1)
+                .withSessionTimeout(Duration.ofMillis(100));
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withGovernor(governor)
+                .connect();
+        try {
+            final FtpClient anotherFtpClient = new FtpClient()
+                    .withHost("localhost")
+                    .withPort(fakeFtpServer.getServerControlPort())
+                    .withUsername(USERNAME)
+                    .withPassword(PASSWORD)
+                    .withGovernor(governor);
+
+            assertThrows(FtpClientException.class, anotherFtpClient::connect);
+        } finally {
+            ftpClient.close();
+        }
+    }
+
+    @Test
+    void governor_limitsBandwidth() {
+        final byte[] bytes = new byte[150000];
+        new Random().nextBytes(bytes);
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(fakeFtpServer.getServerControlPort())
+                .withUsername(USERNAME)
+                .withPassword(PASSWORD)
+                .withGovernor(new FtpGovernor().withMaxBytesPerSecond(100000))
+                .cd(PUT_DIR);
+
+        final long start = System.nanoTime();
+        ftpClient.put("throttled.bin", new ByteArrayInputStream(bytes), FtpClient.FileType.BINARY);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        ftpClient.close();
+
+        assertThat("throttled", elapsedMillis >= 400, is(true));
+    }
+
+    @Test
+    void dataConnectionModes() throws IOException {
+        for (FtpClient.DataConnectionMode mode : FtpClient.DataConnectionMode.values()) {
+            final String filename = "put_string_" + mode + ".txt";
+            final String fileContent = "testing put string in " + mode + " mode";
+            final FtpClient ftpClient = new FtpClient()
+                    .withHost("localhost")
+                    .withPort(fakeFtpServer.getServerControlPort())
+                    .withUsername(USERNAME)
+                    .withPassword(PASSWORD)
+                    .withDataConnectionMode(mode)
+                    .cd(PUT_DIR)
+                    .put(filename, fileContent);
+
+            assertThat(mode + " put", getRemoteFileContent(pathJoin(HOME_DIR, PUT_DIR, filename)),
+                    is(fileContent));
+            assertThat(mode + " get", readInputString(ftpClient.get(filename)), is(fileContent));
+            assertThat(mode + " list", ftpClient.list().contains(filename), is(true));
+            ftpClient.close();
+        }
+    }
+
+    @Test
+    void list_withListingParser() {
+        final String[] putFiles = new String[] {
+            "src/test/resources/put_file.txt",
+            "src/test/resources/put_another_file.txt"};
+        final FtpClient ftpClient = new FtpClient()
+            .withHost("localhost")
+            .withPort(fakeFtpServer.getServerControlPort())
+            .withUsername(USERNAME)
+            .withPassword(PASSWORD)
+            .withListingParser(new UnixListingParser())
+            .cd(PUT_DIR);
+        for(String path : putFiles) {
+            ftpClient.put(Paths.get(path));
+        }
+
+        assertThat("list", ftpClient.list(), is(List.of("put_another_file.txt", "put_file.txt")));
+
+        ftpClient.cd(HOME_DIR);
+        final List<ListingEntry> entries = ftpClient.listEntries(PUT_DIR,
+            entry -> entry.getName().contains("another"));
+        ftpClient.close();
+
+        assertThat("entries size", entries.size(), is(1));
+        assertThat("entry name", entries.get(0).getName(), is("put_another_file.txt"));
+        assertThat("entry size", entries.get(0).getSize(), is(112L));
+        assertThat("entry is file", entries.get(0).isFile(), is(true));
+    }
+
     private static String readInputString(InputStream is) throws IOException {
         try(final BufferedReader in = new BufferedReader(new InputStreamReader(is))) {
             StringBuilder sb = new StringBuilder();
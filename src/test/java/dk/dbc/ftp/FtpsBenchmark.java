@@ -0,0 +1,73 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt
+ */
+
+package dk.dbc.ftp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manual benchmark comparing small-file upload rates over plain FTP,
+ * explicit FTPS and explicit FTPS resuming TLS sessions on data
+ * connections, against an {@link EmbeddedFtpsServer}. Run with
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=dk.dbc.ftp.FtpsBenchmark
+ * </pre>
+ * adding {@code --add-opens java.base/sun.security.ssl=ALL-UNNAMED
+ * --add-opens java.base/sun.security.util=ALL-UNNAMED} to MAVEN_OPTS
+ * to include the session reuse run.
+ */
+public class FtpsBenchmark {
+    private static final int WARMUP_FILES = 100;
+    private static final int FILES = 500;
+    private static final String CONTENT = "x".repeat(1024);
+
+    public static void main(String[] args) throws Exception {
+        final EmbeddedFtpsServer ftpsServer = new EmbeddedFtpsServer();
+        try {
+            run("plain", newFtpClient(ftpsServer));
+            run("explicit TLS", newFtpClient(ftpsServer)
+                    .withTlsMode(FtpClient.TlsMode.EXPLICIT)
+                    .withSslContext(EmbeddedFtpsServer.trustingSslContext()));
+            if (FtpClient.isTlsSessionReuseSupported()) {
+                run("explicit TLS with session reuse", newFtpClient(ftpsServer)
+                        .withTlsMode(FtpClient.TlsMode.EXPLICIT)
+                        .withSslContext(EmbeddedFtpsServer.trustingSslContext())
+                        .withTlsSessionReuse(true));
+            } else {
+                System.out.println("explicit TLS with session reuse: not supported in this JVM");
+            }
+        } finally {
+            ftpsServer.stop();
+        }
+    }
+
+    private static FtpClient newFtpClient(EmbeddedFtpsServer ftpsServer) {
+        return new FtpClient()
+                .withHost("localhost")
+                .withPort(ftpsServer.getPort())
+                .withUsername(EmbeddedFtpsServer.USERNAME)
+                .withPassword(EmbeddedFtpsServer.PASSWORD);
+    }
+
+    private static void run(String name, FtpClient ftpClient) {
+        try {
+            upload(ftpClient, name + "_warmup", WARMUP_FILES);
+            final long start = System.nanoTime();
+            upload(ftpClient, name, FILES);
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.printf("%s: %d files in %d ms, %.1f files/s%n",
+                    name, FILES, elapsedMillis, FILES * 1000.0 / Math.max(elapsedMillis, 1));
+        } finally {
+            ftpClient.close();
+        }
+    }
+
+    private static void upload(FtpClient ftpClient, String prefix, int files) {
+        for (int i = 0; i < files; i++) {
+            ftpClient.put(prefix.replace(' ', '_') + "_" + i + ".txt", CONTENT);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt
+ */
+
+package dk.dbc.ftp;
+
+import org.apache.ftpserver.ftplet.FtpException;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class FtpsClientTest {
+    private static EmbeddedFtpsServer ftpsServer;
+
+    @BeforeAll
+    static void startFtpsServer() throws IOException, FtpException {
+        ftpsServer = new EmbeddedFtpsServer();
+    }
+
+    @AfterAll
+    static void stopFtpsServer() {
+        ftpsServer.stop();
+    }
+
+    @Test
+    void explicitTls() throws IOException, GeneralSecurityException {
+        final String filename = "put_string_explicit_tls.txt";
+        final String fileContent = "testing put string over explicit TLS";
+        final FtpClient ftpClient = newFtpsClient()
+                .put(filename, fileContent);
+
+        assertThat("get", readAll(ftpClient.get(filename)), is(fileContent));
+        assertThat("list", ftpClient.list(), hasItem(filename));
+        ftpClient.close();
+
+        assertThat("stored", Files.readString(ftpsServer.getHomeDirectory().resolve(filename)),
+                is(fileContent));
+    }
+
+    @Test
+    void implicitTls() throws IOException, GeneralSecurityException {
+        final String filename = "put_string_implicit_tls.txt";
+        final String fileContent = "testing put string over implicit TLS";
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(ftpsServer.getImplicitPort())
+                .withUsername(EmbeddedFtpsServer.USERNAME)
+                .withPassword(EmbeddedFtpsServer.PASSWORD)
+                .withTlsMode(FtpClient.TlsMode.IMPLICIT)
+                .withSslContext(EmbeddedFtpsServer.trustingSslContext())
+                .put(filename, fileContent);
+
+        assertThat("get", readAll(ftpClient.get(filename)), is(fileContent));
+        assertThat("list", ftpClient.list(), hasItem(filename));
+        ftpClient.close();
+
+        assertThat("stored", Files.readString(ftpsServer.getHomeDirectory().resolve(filename)),
+                is(fileContent));
+    }
+
+    @Test
+    void explicitTls_untrustedCertificate() {
+        final FtpClient ftpClient = new FtpClient()
+                .withHost("localhost")
+                .withPort(ftpsServer.getPort())
+                .withUsername(EmbeddedFtpsServer.USERNAME)
+                .withPassword(EmbeddedFtpsServer.PASSWORD)
+                .withTlsMode(FtpClient.TlsMode.EXPLICIT);
+
+        assertThrows(FtpClientException.class, ftpClient::connect);
+    }
+
+    @Test
+    void explicitTls_hostnameVerifier() throws IOException, GeneralSecurityException {
+        final FtpClient ftpClient = newFtpsClient()
+                .withHostnameVerifier((hostname, session) -> false);
+
+        assertThrows(FtpClientException.class, ftpClient::connect);
+    }
+
+    @Test
+    void explicitTls_sessionReuse() throws IOException, GeneralSecurityException {
+        assumeTrue(FtpClient.isTlsSessionReuseSupported());
+        final AtomicInteger fullHandshakes = new AtomicInteger();
+        final FtpClient ftpClient = newFtpsClient(fullHandshakes)
+                .withTlsSessionReuse(true);
+
+        transferFiles(ftpClient, "put_string_tls_session_reuse");
+
+        assertThat("only the control connection does a full handshake",
+                fullHandshakes.get(), is(1));
+    }
+
+    @Test
+    void explicitTls_sessionReuse_tls12() throws IOException, GeneralSecurityException {
+        assumeTrue(FtpClient.isTlsSessionReuseSupported());
+        final AtomicInteger fullHandshakes = new AtomicInteger();
+        final FtpClient ftpClient = newFtpsClient(fullHandshakes)
+                .withTlsProtocols("TLSv1.2")
+                .withTlsSessionReuse(true);
+
+        transferFiles(ftpClient, "put_string_tls12_session_reuse");
+
+        assertThat("only the control connection does a full handshake",
+                fullHandshakes.get(), is(1));
+    }
+
+    @Test
+    void explicitTls_withoutSessionReuse() throws IOException, GeneralSecurityException {
+        final AtomicInteger fullHandshakes = new AtomicInteger();
+        final FtpClient ftpClient = newFtpsClient(fullHandshakes);
+
+        transferFiles(ftpClient, "put_string_without_tls_session_reuse");
+
+        assertThat("data connections do full handshakes",
+                fullHandshakes.get() > 1, is(true));
+    }
+
+    @Test
+    void explicitTls_sessionReuseNotSupported() throws IOException, GeneralSecurityException {
+        assumeFalse(FtpClient.isTlsSessionReuseSupported());
+        final FtpClient ftpClient = newFtpsClient()
+                .withTlsSessionReuse(true);
+
+        assertThrows(FtpClientException.class, ftpClient::connect);
+    }
+
+    private static FtpClient newFtpsClient() throws IOException, GeneralSecurityException {
+        return newFtpsClient(new AtomicInteger());
+    }
+
+    private static FtpClient newFtpsClient(AtomicInteger fullHandshakes)
+            throws IOException, GeneralSecurityException {
+        return new FtpClient()
+                .withHost("localhost")
+                .withPort(ftpsServer.getPort())
+                .withUsername(EmbeddedFtpsServer.USERNAME)
+                .withPassword(EmbeddedFtpsServer.PASSWORD)
+                .withTlsMode(FtpClient.TlsMode.EXPLICIT)
+                .withSslContext(EmbeddedFtpsServer.trustingSslContext(fullHandshakes));
+    }
+
+    /* puts three files and gets one back, each over its own data connection */
+    private static void transferFiles(FtpClient ftpClient, String filenamePrefix) throws IOException {
+        final String fileContent = "testing put string over TLS data connection";
+        try {
+            for (int i = 0; i < 3; i++) {
+                ftpClient.put(filenamePrefix + i + ".txt", fileContent);
+            }
+            assertThat("get", readAll(ftpClient.get(filenamePrefix + "0.txt")), is(fileContent));
+        } finally {
+            ftpClient.close();
+        }
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        try (inputStream) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
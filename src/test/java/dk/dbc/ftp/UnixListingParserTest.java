@@ -0,0 +1,170 @@
+/*
+ * Copyright Dansk Bibliotekscenter a/s. Licensed under GPLv3
+ * See license text in LICENSE.txt
+ */
+
+package dk.dbc.ftp;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.parser.UnixFTPEntryParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class UnixListingParserTest {
+    private static final String LISTING =
+            "total 12\r\n" +
+            "drwxr-xr-x   2 owner    group       4096 Jan 01 12:00 dir\r\n" +
+            "-rw-r--r--   1 owner    group         16 Jan 01  2020 file with  blanks.txt\r\n" +
+            "lrwxrwxrwx   1 owner    group          4 Jan 01 12:00 link -> file\r\n" +
+            "-rw-r--r--   1 owner    group        112 Jan 01 12:00 æøå.txt";
+
+    @Test
+    void parse() throws IOException {
+        final List<ListingEntry> entries = read(LISTING);
+
+        assertThat("number of entries", entries.size(), is(4));
+        assertThat("dir name", entries.get(0).getName(), is("dir"));
+        assertThat("dir is directory", entries.get(0).isDirectory(), is(true));
+        assertThat("file name", entries.get(1).getName(), is("file with  blanks.txt"));
+        assertThat("file size", entries.get(1).getSize(), is(16L));
+        assertThat("file is file", entries.get(1).isFile(), is(true));
+        assertThat("link name", entries.get(2).getName(), is("link"));
+        assertThat("link is symbolic link", entries.get(2).isSymbolicLink(), is(true));
+        assertThat("utf-8 name", entries.get(3).getName(), is("æøå.txt"));
+        assertThat("raw listing", entries.get(3).getRawListing(),
+                is("-rw-r--r--   1 owner    group        112 Jan 01 12:00 æøå.txt"));
+    }
+
+    @Test
+    void parse_deviceFile() throws IOException {
+        final String listing =
+                "crw-rw-rw-   1 root     root       1,   3 Jan 01 12:00 null\n" +
+                "brw-rw----   1 root     disk       8,0 Jan 01  2020 sda\n";
+        final List<ListingEntry> entries = read(listing);
+
+        assertThat("number of entries", entries.size(), is(2));
+        assertThat("character device name", entries.get(0).getName(), is("null"));
+        assertThat("character device size", entries.get(0).getSize(), is(-1L));
+        assertThat("block device name", entries.get(1).getName(), is("sda"));
+        assertThat("block device size", entries.get(1).getSize(), is(-1L));
+        assertThat("names", readNames(listing), is(List.of("null", "sda")));
+    }
+
+    @Test
+    void parse_withoutGroup() throws IOException {
+        final List<ListingEntry> entries = read(
+                "-rw-r--r--   1 1000         16 Jan 01 12:00 12 Jan 01 12:00.txt\n");
+
+        assertThat("number of entries", entries.size(), is(1));
+        assertThat("name", entries.get(0).getName(), is("12 Jan 01 12:00.txt"));
+        assertThat("size", entries.get(0).getSize(), is(16L));
+    }
+
+    @Test
+    void parse_lineLongerThanBuffer() throws IOException {
+        final String name = "x".repeat(200000);
+        final List<ListingEntry> entries = read(
+                "-rw-r--r--   1 owner    group         16 Jan 01 12:00 " + name + "\n");
+
+        assertThat("number of entries", entries.size(), is(1));
+        assertThat("name", entries.get(0).getName(), is(name));
+    }
+
+    @Test
+    void parseName() throws IOException {
+        assertThat("names", readNames(LISTING), is(List.of("dir", "file with  blanks.txt", "link", "æøå.txt")));
+    }
+
+    @Test
+    void parseName_allocatesLessThanCommonsNet() throws IOException {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean,
+                "thread allocation measurement not supported");
+        final com.sun.management.ThreadMXBean allocations =
+                (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue(allocations.isThreadAllocatedMemorySupported(),
+                "thread allocation measurement not supported");
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        final int lines = 100000;
+        final StringBuilder listing = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            listing.append(String.format(
+                    "-rw-r--r--   1 owner    group      %6d Jan 01 12:00 file%06d.txt\r\n", i, i));
+        }
+        final byte[] bytes = listing.toString().getBytes(StandardCharsets.UTF_8);
+        final String[] strings = listing.toString().split("\r\n");
+        final UnixFTPEntryParser commonsNetParser = new UnixFTPEntryParser();
+
+        // warm up, class loading and compilation must not count
+        readNames(bytes);
+        parseWithCommonsNet(commonsNetParser, strings);
+
+        final long threadId = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(threadId);
+        final List<String> names = readNames(bytes);
+        final long listAllocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        before = allocations.getThreadAllocatedBytes(threadId);
+        // commons-net gets the decoded lines for free, favouring it
+        final List<String> commonsNetNames = parseWithCommonsNet(commonsNetParser, strings);
+        final long commonsNetAllocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+        assertThat("names", names, is(commonsNetNames));
+        assertThat(String.format("bytes allocated per entry, %d, is an order of magnitude less than %d by commons-net",
+                listAllocated / lines, commonsNetAllocated / lines),
+                listAllocated * 10 < commonsNetAllocated, is(true));
+    }
+
+    private static List<String> parseWithCommonsNet(UnixFTPEntryParser parser, String[] lines) {
+        final List<String> names = new ArrayList<>();
+        for (String line : lines) {
+            final FTPFile file = parser.parseFTPEntry(line);
+            if (file != null) {
+                names.add(file.getName());
+            }
+        }
+        return names;
+    }
+
+    private static List<ListingEntry> read(String listing) throws IOException {
+        final UnixListingParser parser = new UnixListingParser();
+        final List<ListingEntry> entries = new ArrayList<>();
+        ListingReader.read(new ByteArrayInputStream(listing.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, (line, offset, length, charset) -> {
+                    final ListingEntry entry = parser.parse(line, offset, length, charset);
+                    if (entry != null) {
+                        entries.add(entry);
+                    }
+                });
+        return entries;
+    }
+
+    private static List<String> readNames(String listing) throws IOException {
+        return readNames(listing.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> readNames(byte[] listing) throws IOException {
+        final UnixListingParser parser = new UnixListingParser();
+        final List<String> names = new ArrayList<>();
+        ListingReader.read(new ByteArrayInputStream(listing), StandardCharsets.UTF_8,
+                (line, offset, length, charset) -> {
+                    final String name = parser.parseName(line, offset, length, charset);
+                    if (name != null) {
+                        names.add(name);
+                    }
+                });
+        return names;
+    }
+}